@@ -0,0 +1,25 @@
+package com.mrsnottypants.factory;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Helpers for closing sockets and channels during shutdown
+ */
+final class Closeables {
+
+    /**
+     * Close, ignoring failure - used where there is nothing more to do about it
+     * @param closeable thing to close
+     */
+    static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // nothing more to do
+        }
+    }
+
+    // prevent instantiation
+    private Closeables() {}
+}
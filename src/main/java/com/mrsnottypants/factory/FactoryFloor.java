@@ -13,6 +13,11 @@ public class FactoryFloor {
     // list of blocks on each floor position
     private final Map<Integer, Stack<Integer>> blocksOnPosition;
 
+    // positions changed since the last reset : lets resetAll skip positions that still hold their starting block
+    private final boolean[] touched;
+    private final int[] touchedPositions;
+    private int touchedCount;
+
     /**
      * Return a new instance of a factory floor, with specified count of spots for blocks.
      * Blocks are assigned a position equal to their starting position.
@@ -34,6 +39,8 @@ public class FactoryFloor {
 
         blockPosition = new HashMap<>();
         blocksOnPosition = new HashMap<>();
+        touched = new boolean[positionCount];
+        touchedPositions = new int[positionCount];
 
         // put blocks at their initial floor position
         // note: blocks are assign an ID equal to their starting position
@@ -41,6 +48,61 @@ public class FactoryFloor {
             blocksOnPosition.put(position, new Stack<>());
             putBlock(position, position);
         }
+
+        // starting blocks don't count as changes
+        resetTouched();
+    }
+
+    /**
+     * Return a new instance of a factory floor, with blocks stacked as given.
+     * Used to rebuild a floor from a snapshot.
+     * @param positions for each floor position, its blocks from bottom to top
+     * @return factory floor
+     */
+    static FactoryFloor copyOf(List<? extends List<Integer>> positions) {
+
+        // every block must appear exactly once
+        int positionCount = positions.size();
+        boolean[] seen = new boolean[positionCount];
+        for (List<Integer> blocks : positions) {
+            for (int block : blocks) {
+                if ((block < 0) || (block >= positionCount) || seen[block]) {
+                    throw new IllegalArgumentException(String.format("block %d is unknown or repeated", block));
+                }
+                seen[block] = true;
+            }
+        }
+        for (int block = 0 ; block < positionCount ; block++) {
+            if (!seen[block]) {
+                throw new IllegalArgumentException(String.format("block %d is missing", block));
+            }
+        }
+
+        // clear the starting blocks, then stack blocks as given
+        FactoryFloor floor = new FactoryFloor(positionCount);
+        for (int position = 0 ; position < positionCount ; position++) {
+            floor.takeBlock(position);
+        }
+        for (int position = 0 ; position < positionCount ; position++) {
+            for (int block : positions.get(position)) {
+                floor.putBlock(position, block);
+            }
+        }
+        return floor;
+    }
+
+    /**
+     * Returns a copy of every floor position's blocks, from bottom to top.
+     * The copy can be passed to copyOf to rebuild this floor.
+     * @return blocks on each position
+     */
+    List<List<Integer>> snapshot() {
+
+        List<List<Integer>> positions = new ArrayList<>(blocksOnPosition.size());
+        for (int position = 0 ; position < blocksOnPosition.size() ; position++) {
+            positions.add(new ArrayList<>(blocksOnPosition.get(position)));
+        }
+        return positions;
     }
 
     /**
@@ -52,6 +114,9 @@ public class FactoryFloor {
      */
     private void putBlock(int position, int block) {
 
+        // remember position changed
+        touch(position);
+
         // set position
         blockPosition.put(block, position);
 
@@ -67,6 +132,9 @@ public class FactoryFloor {
      */
     private int takeBlock(int position) {
 
+        // remember position changed
+        touch(position);
+
         // pop block off of position
         int block = blocksOnPosition.get(position).pop();
 
@@ -77,6 +145,56 @@ public class FactoryFloor {
         return block;
     }
 
+    /**
+     * Records that a position has changed since the last reset
+     * @param position changed position
+     */
+    private void touch(int position) {
+        if (!touched[position]) {
+            touched[position] = true;
+            touchedPositions[touchedCount++] = position;
+        }
+    }
+
+    /**
+     * Forgets every change - all positions are back to their starting block
+     */
+    private void resetTouched() {
+        for (int j = 0 ; j < touchedCount ; j++) {
+            touched[touchedPositions[j]] = false;
+        }
+        touchedCount = 0;
+    }
+
+    /**
+     * Returns every block to its starting position, leaving the floor as newInstance created it.
+     * Only positions changed since the last reset are visited, so cost is proportional to the blocks moved.
+     */
+    public void resetAll() {
+
+        // empty changed positions
+        // note: a position that never changed still holds just its starting block
+        for (int j = 0 ; j < touchedCount ; j++) {
+            blocksOnPosition.get(touchedPositions[j]).clear();
+        }
+
+        // every block on a changed position started on a changed position - put it back there
+        for (int j = 0 ; j < touchedCount ; j++) {
+            int position = touchedPositions[j];
+            blocksOnPosition.get(position).push(position);
+            blockPosition.put(position, position);
+        }
+        resetTouched();
+    }
+
+    /**
+     * Returns the count of floor positions, which is also the count of blocks
+     * @return position count
+     */
+    public int getPositionCount() {
+        return blocksOnPosition.size();
+    }
+
     /**
      * Throws a no-such-element exception if the position or block is unknown
      * @param id position or block
@@ -170,39 +288,107 @@ public class FactoryFloor {
      */
     private boolean move(int blockFrom, int blockTo, boolean resetPositionFrom, boolean resetPositionTo) {
 
+        // time the move - only committed if a flight recording wants moves this slow
+        // note: with no recording, the event is allocated but its fields are never written
+        MoveEvent event = new MoveEvent();
+        event.begin();
+        boolean moved = false;
+        try {
+            moved = move(blockFrom, blockTo, resetPositionFrom, resetPositionTo, event);
+            return moved;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.moved = moved;
+                event.verb = verbName(resetPositionFrom, resetPositionTo);
+                event.blockFrom = blockFrom;
+                event.blockTo = blockTo;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Move a block, recording positions, displaced blocks and pile size in a flight recorder event.
+     * The event is only written to if it is enabled.
+     * @param blockFrom block to move
+     * @param blockTo block is moved to the position that contains this block
+     * @param resetPositionFrom if true, all blocks above the from-block are returned to their starting positions
+     * @param resetPositionTo if true, all blocks above the to-block are returned to their starting positions
+     * @param event records what the move did
+     * @return true if one or more blocks are moved
+     */
+    private boolean move(int blockFrom, int blockTo, boolean resetPositionFrom, boolean resetPositionTo,
+                         MoveEvent event) {
+
+        // positions stay -1 if a block turns out to be unknown
+        boolean traced = event.isEnabled();
+        if (traced) {
+            event.positionFrom = -1;
+            event.positionTo = -1;
+        }
+
         // sanity check - same block
-        if (blockFrom == blockTo) { return false; }
+        if (blockFrom == blockTo) {
+
+            // nothing moves, but the event still shows where the block is
+            if (traced && (blockFrom >= 0) && (blockFrom < blocksOnPosition.size())) {
+                event.positionFrom = blockPosition.get(blockFrom);
+                event.positionTo = event.positionFrom;
+            }
+            return false;
+        }
 
         // find block to move - also confirms legal block id
         int positionFrom = getBlockPosition(blockFrom);
+        if (traced) { event.positionFrom = positionFrom; }
 
         // find block to move on top of - also confirms legal block id
         int positionTo = getBlockPosition(blockTo);
+        if (traced) { event.positionTo = positionTo; }
 
         // sanity check - same position
         if (positionFrom == positionTo) { return false; }
 
         // optional: clear blocks from position until our block is on top
         // if we don't do this, we also move all blocks above the from block
-        if (resetPositionFrom) { resetPosition(positionFrom, blockFrom); }
+        int displaced = 0;
+        if (resetPositionFrom) { displaced += resetPosition(positionFrom, blockFrom); }
 
         // optional: clear blocks from position until our block is on top
-        if (resetPositionTo) { resetPosition(positionTo, blockTo); }
+        if (resetPositionTo) { displaced += resetPosition(positionTo, blockTo); }
 
         // move block(s)
-        movePosition(positionFrom, positionTo, blockFrom);
+        int pileSize = movePosition(positionFrom, positionTo, blockFrom);
+        if (traced) {
+            event.blocksDisplaced = displaced;
+            event.pileSize = pileSize;
+        }
         return true;
     }
 
+    /**
+     * Name of the public method that moves with these options
+     * @param resetPositionFrom blocks above the from-block are reset
+     * @param resetPositionTo blocks above the to-block are reset
+     * @return method name
+     */
+    private static String verbName(boolean resetPositionFrom, boolean resetPositionTo) {
+        if (resetPositionFrom) { return resetPositionTo ? "moveOnto" : "moveOver"; }
+        return resetPositionTo ? "pileOnto" : "pileOver";
+    }
+
     /**
      * Returns blocks at this position to their start position.
      * Stops once it finds the specified block (which is not moved).
      * @param position to reset
      * @param block all blocks above this block are reset
+     * @return count of blocks reset
      */
-    private void resetPosition(int position, int block) {
+    private int resetPosition(int position, int block) {
 
         // while position has blocks...
+        int count = 0;
         Stack<Integer> blocks = blocksOnPosition.get(position);
         while(blocks.size() > 0) {
 
@@ -212,7 +398,9 @@ public class FactoryFloor {
 
             // otherwise - return block to its original position
             movePosition(position, topBlock, topBlock);
+            count++;
         }
+        return count;
     }
 
     /**
@@ -220,8 +408,9 @@ public class FactoryFloor {
      * @param positionFrom blocks are moved from this floor position
      * @param positionTo blocks are moved to this floor position
      * @param block all blocks down to this block inclusive are moved
+     * @return count of blocks moved
      */
-    private void movePosition(int positionFrom, int positionTo, int block) {
+    private int movePosition(int positionFrom, int positionTo, int block) {
 
         // build up pile of blocks to be moved
         Stack<Integer> pile = new Stack<>();
@@ -235,9 +424,11 @@ public class FactoryFloor {
         }
 
         // put pile onto position
+        int count = pile.size();
         while (pile.size() > 0) {
             putBlock(positionTo, pile.pop());
         }
+        return count;
     }
 
     /**
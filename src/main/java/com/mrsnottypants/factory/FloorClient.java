@@ -0,0 +1,202 @@
+package com.mrsnottypants.factory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Blocking client for a FloorServer.
+ * Mirrors the FactoryFloor API, and adds pipelining of many moves in one round trip.
+ * Not thread-safe - use one client per thread.
+ */
+public class FloorClient implements Closeable {
+
+    // most requests in flight while pipelining
+    private static final int PIPELINE_WINDOW = 512;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * Return a new client connected to a floor server
+     * @param address server address
+     * @return connected client
+     * @throws IOException if the server cannot be reached
+     */
+    public static FloorClient connect(InetSocketAddress address) throws IOException {
+        return new FloorClient(address);
+    }
+
+    private FloorClient(InetSocketAddress address) throws IOException {
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(address);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Move a block onto another block, on the server.
+     * Any blocks above the from and to blocks are first moved back to their starting position.
+     * @param blockFrom block to move
+     * @param blockTo block to move onto
+     * @return true if one or more blocks are moved
+     * @throws IOException if the connection fails
+     * @throws NoSuchElementException if the server reports an unknown block
+     */
+    public boolean moveOnto(int blockFrom, int blockTo) throws IOException {
+        return execute(FloorCommand.of(FloorCommand.Verb.MOVE_ONTO, blockFrom, blockTo));
+    }
+
+    /**
+     * Move a block over another block, on the server.
+     * Any blocks above the from block are first moved back to their starting position.
+     * @param blockFrom block to move
+     * @param blockTo block to move over
+     * @return true if one or more blocks are moved
+     * @throws IOException if the connection fails
+     * @throws NoSuchElementException if the server reports an unknown block
+     */
+    public boolean moveOver(int blockFrom, int blockTo) throws IOException {
+        return execute(FloorCommand.of(FloorCommand.Verb.MOVE_OVER, blockFrom, blockTo));
+    }
+
+    /**
+     * Move a block, and the blocks above it, onto another block, on the server.
+     * Any blocks above the to block are first moved back to their starting position.
+     * @param blockFrom block to move
+     * @param blockTo block to move onto
+     * @return true if one or more blocks are moved
+     * @throws IOException if the connection fails
+     * @throws NoSuchElementException if the server reports an unknown block
+     */
+    public boolean pileOnto(int blockFrom, int blockTo) throws IOException {
+        return execute(FloorCommand.of(FloorCommand.Verb.PILE_ONTO, blockFrom, blockTo));
+    }
+
+    /**
+     * Move a block, and the blocks above it, over another block, on the server.
+     * @param blockFrom block to move
+     * @param blockTo block to move over
+     * @return true if one or more blocks are moved
+     * @throws IOException if the connection fails
+     * @throws NoSuchElementException if the server reports an unknown block
+     */
+    public boolean pileOver(int blockFrom, int blockTo) throws IOException {
+        return execute(FloorCommand.of(FloorCommand.Verb.PILE_OVER, blockFrom, blockTo));
+    }
+
+    /**
+     * Execute a single move on the server
+     * @param command move to execute
+     * @return true if one or more blocks are moved
+     * @throws IOException if the connection fails
+     */
+    public boolean execute(FloorCommand command) throws IOException {
+        send(command);
+        out.flush();
+        return readMoved();
+    }
+
+    /**
+     * Execute many moves, sending them ahead of their responses.
+     * If any move fails, the remaining responses are still read and the first failure is thrown.
+     * @param commands moves to execute, in order
+     * @return for each move, true if one or more blocks are moved
+     * @throws IOException if the connection fails
+     */
+    public boolean[] pipeline(List<FloorCommand> commands) throws IOException {
+
+        boolean[] moved = new boolean[commands.size()];
+        RuntimeException failure = null;
+
+        // send a window of requests, then read its responses
+        for (int start = 0 ; start < commands.size() ; start += PIPELINE_WINDOW) {
+            int end = Math.min(start + PIPELINE_WINDOW, commands.size());
+
+            for (int j = start ; j < end ; j++) { send(commands.get(j)); }
+            out.flush();
+
+            for (int j = start ; j < end ; j++) {
+                try {
+                    moved[j] = readMoved();
+                } catch (NoSuchElementException | IllegalStateException e) {
+                    if (failure == null) { failure = e; }
+                }
+            }
+        }
+
+        if (failure != null) { throw failure; }
+        return moved;
+    }
+
+    /**
+     * Returns the floor position of a given block
+     * @param block block
+     * @return floor position
+     * @throws IOException if the connection fails
+     */
+    public int getBlockPosition(int block) throws IOException {
+        send(FloorProtocol.GET_BLOCK_POSITION, block, 0);
+        out.flush();
+        readStatus();
+        return in.readInt();
+    }
+
+    /**
+     * Returns a read-only list of blocks at the given position.
+     * Ordering is from bottom block to top block
+     * @param position position of blocks
+     * @return list of blocks
+     * @throws IOException if the connection fails
+     */
+    public List<Integer> getBlocksAt(int position) throws IOException {
+        send(FloorProtocol.GET_BLOCKS_AT, position, 0);
+        out.flush();
+        readStatus();
+
+        int count = in.readInt();
+        List<Integer> blocks = new ArrayList<>(count);
+        for (int j = 0 ; j < count ; j++) { blocks.add(in.readInt()); }
+        return Collections.unmodifiableList(blocks);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private void send(FloorCommand command) throws IOException {
+        send(FloorProtocol.opcodeOf(command.getVerb()), command.getBlockFrom(), command.getBlockTo());
+    }
+
+    private void send(byte opcode, int first, int second) throws IOException {
+        out.writeInt(FloorProtocol.REQUEST_LENGTH);
+        out.writeByte(opcode);
+        out.writeInt(first);
+        out.writeInt(second);
+    }
+
+    private boolean readMoved() throws IOException {
+        readStatus();
+        return in.readByte() != 0;
+    }
+
+    /**
+     * Reads the length and status of the next response.
+     * Throws the same exception FactoryFloor would have thrown if the request failed.
+     * @throws IOException if the connection fails
+     */
+    private void readStatus() throws IOException {
+
+        in.readInt();
+        byte status = in.readByte();
+        if (status == FloorProtocol.STATUS_NO_SUCH_ELEMENT) { throw new NoSuchElementException("no such element"); }
+        if (status != FloorProtocol.STATUS_OK) { throw new IllegalStateException("server could not execute request"); }
+    }
+}
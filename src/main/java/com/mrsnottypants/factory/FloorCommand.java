@@ -0,0 +1,98 @@
+package com.mrsnottypants.factory;
+
+/**
+ * A single move command against a factory floor.
+ * Commands are deterministic - applying the same commands in the same order to identical floors
+ * always leaves the floors identical.
+ */
+public final class FloorCommand {
+
+    /**
+     * The four ways of moving a block
+     */
+    public enum Verb {
+        MOVE_ONTO,
+        MOVE_OVER,
+        PILE_ONTO,
+        PILE_OVER
+    }
+
+    private final Verb verb;
+    private final int blockFrom;
+    private final int blockTo;
+
+    /**
+     * Return a new command
+     * @param verb how to move the block
+     * @param blockFrom block to move
+     * @param blockTo block to move onto or over
+     * @return command
+     */
+    public static FloorCommand of(Verb verb, int blockFrom, int blockTo) {
+
+        if (verb == null) { throw new IllegalArgumentException("verb must not be null"); }
+        return new FloorCommand(verb, blockFrom, blockTo);
+    }
+
+    private FloorCommand(Verb verb, int blockFrom, int blockTo) {
+        this.verb = verb;
+        this.blockFrom = blockFrom;
+        this.blockTo = blockTo;
+    }
+
+    /**
+     * Apply this command to a floor
+     * @param floor floor to change
+     * @return true if one or more blocks are moved
+     */
+    public boolean applyTo(FactoryFloor floor) {
+        switch (verb) {
+            case MOVE_ONTO: return floor.moveOnto(blockFrom, blockTo);
+            case MOVE_OVER: return floor.moveOver(blockFrom, blockTo);
+            case PILE_ONTO: return floor.pileOnto(blockFrom, blockTo);
+            default: return floor.pileOver(blockFrom, blockTo);
+        }
+    }
+
+    /**
+     * Returns how this command moves the block
+     * @return verb
+     */
+    public Verb getVerb() {
+        return verb;
+    }
+
+    /**
+     * Returns the block this command moves
+     * @return block to move
+     */
+    public int getBlockFrom() {
+        return blockFrom;
+    }
+
+    /**
+     * Returns the block this command moves onto or over
+     * @return block to move onto or over
+     */
+    public int getBlockTo() {
+        return blockTo;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (!(o instanceof FloorCommand)) { return false; }
+        FloorCommand other = (FloorCommand) o;
+        return (verb == other.verb) && (blockFrom == other.blockFrom) && (blockTo == other.blockTo);
+    }
+
+    @Override
+    public int hashCode() {
+        return (verb.hashCode() * 31 + blockFrom) * 31 + blockTo;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %d %d", verb, blockFrom, blockTo);
+    }
+}
@@ -0,0 +1,64 @@
+package com.mrsnottypants.factory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands out factory floors, recycling released floors instead of building new ones.
+ * Released floors are reset with resetAll, which only costs as much as the blocks moved since acquire.
+ * Each thread keeps its own idle floors, so acquire and release never contend.
+ */
+public class FloorPool {
+
+    // most idle floors a thread keeps for each position count
+    private final int maxIdle;
+
+    // idle floors for the current thread : position count -> floors
+    private final ThreadLocal<Map<Integer, Deque<FactoryFloor>>> idle = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * Return a new pool
+     * @param maxIdle most idle floors each thread keeps for each position count
+     * @return floor pool
+     */
+    public static FloorPool newInstance(int maxIdle) {
+
+        if (maxIdle < 0) { throw new IllegalArgumentException("maxIdle must be positive"); }
+        return new FloorPool(maxIdle);
+    }
+
+    private FloorPool(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Returns a floor in its starting state - recycled if this thread has one idle, otherwise new
+     * @param positionCount floor has this many positions. each position starts with a block.
+     * @return factory floor
+     */
+    public FactoryFloor acquire(int positionCount) {
+
+        Deque<FactoryFloor> floors = idle.get().get(positionCount);
+        FactoryFloor floor = (floors == null) ? null : floors.pollLast();
+        return (floor != null) ? floor : FactoryFloor.newInstance(positionCount);
+    }
+
+    /**
+     * Returns a floor to the pool. The floor must not be used after it is released.
+     * Releasing a floor that is already idle has no effect.
+     * @param floor floor to recycle
+     */
+    public void release(FactoryFloor floor) {
+
+        Deque<FactoryFloor> floors = idle.get().computeIfAbsent(floor.getPositionCount(), count -> new ArrayDeque<>());
+
+        // pool is full, or floor was already released - keep at most one copy, so no two runs share a floor
+        // note: the deque holds at most maxIdle floors, so the check is cheap
+        if ((floors.size() >= maxIdle) || floors.contains(floor)) { return; }
+
+        floor.resetAll();
+        floors.addLast(floor);
+    }
+}
@@ -0,0 +1,67 @@
+package com.mrsnottypants.factory;
+
+/**
+ * Binary protocol spoken by the floor server.
+ *
+ * Every frame is a 4 byte big-endian length followed by that many payload bytes.
+ * A request payload is an opcode byte followed by two ints (the second is ignored by lookups).
+ * A response payload is a status byte followed by the result:
+ * a byte (0 or 1) for moves, an int for GET_BLOCK_POSITION, and a count plus that many ints for GET_BLOCKS_AT.
+ * Error responses carry no result.
+ *
+ * Clients may pipeline - send many requests before reading responses.
+ * Responses on a connection are always returned in request order.
+ */
+public final class FloorProtocol {
+
+    // request opcodes
+    public static final byte MOVE_ONTO = 1;
+    public static final byte MOVE_OVER = 2;
+    public static final byte PILE_ONTO = 3;
+    public static final byte PILE_OVER = 4;
+    public static final byte GET_BLOCK_POSITION = 5;
+    public static final byte GET_BLOCKS_AT = 6;
+
+    // response status
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_NO_SUCH_ELEMENT = 1;
+    public static final byte STATUS_ERROR = 2;
+
+    // size of the length prefix
+    public static final int LENGTH_BYTES = 4;
+
+    // every request payload is an opcode plus two ints
+    public static final int REQUEST_LENGTH = 1 + 4 + 4;
+
+    /**
+     * Returns the opcode for a move verb
+     * @param verb move verb
+     * @return opcode
+     */
+    public static byte opcodeOf(FloorCommand.Verb verb) {
+        switch (verb) {
+            case MOVE_ONTO: return MOVE_ONTO;
+            case MOVE_OVER: return MOVE_OVER;
+            case PILE_ONTO: return PILE_ONTO;
+            default: return PILE_OVER;
+        }
+    }
+
+    /**
+     * Returns the move verb for an opcode
+     * @param opcode request opcode
+     * @return move verb, or null if the opcode is not a move
+     */
+    public static FloorCommand.Verb verbOf(byte opcode) {
+        switch (opcode) {
+            case MOVE_ONTO: return FloorCommand.Verb.MOVE_ONTO;
+            case MOVE_OVER: return FloorCommand.Verb.MOVE_OVER;
+            case PILE_ONTO: return FloorCommand.Verb.PILE_ONTO;
+            case PILE_OVER: return FloorCommand.Verb.PILE_OVER;
+            default: return null;
+        }
+    }
+
+    // prevent instantiation
+    private FloorProtocol() {}
+}
@@ -0,0 +1,520 @@
+package com.mrsnottypants.factory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves a factory floor to remote clients over the binary protocol described in FloorProtocol.
+ *
+ * A selector thread owns every socket. It decodes pipelined requests and offers them to a bounded queue.
+ * A single writer thread owns the floor. It drains the queue in batches, executes each request,
+ * and hands the batch's responses back to the selector thread to be written out.
+ *
+ * Backpressure: a connection stops being read while the queue is full,
+ * or while it has too many response bytes waiting to be sent.
+ */
+public class FloorServer implements Closeable {
+
+    // default bound on requests waiting for the writer
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    // stop reading from a connection once this many response bytes are waiting to be sent
+    private static final int OUTPUT_HIGH_WATER = 64 * 1024;
+
+    // size of each connection's read buffer
+    private static final int INPUT_BUFFER_SIZE = 16 * 1024;
+
+    // most requests executed before responses are flushed
+    private static final int MAX_BATCH = 1024;
+
+    private final FactoryFloor floor;
+
+    // moves go through the leader when the floor is replicated, null otherwise
+    private final ReplicationLeader leader;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+
+    // requests waiting for the writer
+    private final BlockingQueue<Request> requests;
+
+    // connections with responses to flush - handed from the writer to the selector
+    private final Queue<Connection> flushable = new ConcurrentLinkedQueue<>();
+
+    // connections holding a request the full queue would not take - retried by the selector
+    private final Queue<Connection> stalled = new ConcurrentLinkedQueue<>();
+
+    private final Thread selectorThread;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    /**
+     * Start serving a floor.
+     * From here on the floor must only be changed through the server.
+     * @param floor floor to serve
+     * @param address address to listen on. port 0 picks a free port.
+     * @param queueCapacity most requests waiting for the writer before connections stop being read
+     * @return running server
+     * @throws IOException if the address cannot be bound
+     */
+    public static FloorServer start(FactoryFloor floor, InetSocketAddress address, int queueCapacity)
+            throws IOException {
+
+        if (floor == null) { throw new IllegalArgumentException("floor must not be null"); }
+        if (queueCapacity < 1) { throw new IllegalArgumentException("queueCapacity must be positive"); }
+
+        return start(new FloorServer(floor, null, address, queueCapacity));
+    }
+
+    /**
+     * Start serving a replicated floor. Moves are applied through the leader, so followers see them.
+     * @param leader leader owning the floor to serve
+     * @param address address to listen on. port 0 picks a free port.
+     * @param queueCapacity most requests waiting for the writer before connections stop being read
+     * @return running server
+     * @throws IOException if the address cannot be bound
+     */
+    public static FloorServer start(ReplicationLeader leader, InetSocketAddress address, int queueCapacity)
+            throws IOException {
+
+        if (leader == null) { throw new IllegalArgumentException("leader must not be null"); }
+        if (queueCapacity < 1) { throw new IllegalArgumentException("queueCapacity must be positive"); }
+
+        return start(new FloorServer(leader.getFloor(), leader, address, queueCapacity));
+    }
+
+    private static FloorServer start(FloorServer server) {
+        server.selectorThread.start();
+        server.writerThread.start();
+        return server;
+    }
+
+    private FloorServer(FactoryFloor floor, ReplicationLeader leader, InetSocketAddress address, int queueCapacity)
+            throws IOException {
+
+        this.floor = floor;
+        this.leader = leader;
+        this.requests = new ArrayBlockingQueue<>(queueCapacity);
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        selectorThread = new Thread(this::runSelector, "floor-selector");
+        writerThread = new Thread(this::runWriter, "floor-writer");
+    }
+
+    /**
+     * Returns the address the server is listening on
+     * @return listening address
+     * @throws IOException if the address cannot be read
+     */
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    /**
+     * Stop serving. Requests not yet executed are dropped and every connection is closed.
+     */
+    @Override
+    public void close() {
+
+        running = false;
+        writerThread.interrupt();
+        selector.wakeup();
+
+        try {
+            writerThread.join();
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Selector thread: accepts connections, reads and decodes requests, writes responses.
+     */
+    private void runSelector() {
+
+        try {
+            while (running) {
+
+                selector.select();
+
+                // write out responses handed over by the writer
+                Connection connection;
+                while ((connection = flushable.poll()) != null) {
+                    connection.flushScheduled.set(false);
+                    flush(connection);
+                }
+
+                // retry connections that were waiting on a full queue
+                for (int j = stalled.size() ; j > 0 ; j--) {
+                    connection = stalled.poll();
+                    if (connection == null) { break; }
+                    decode(connection);
+                }
+
+                // handle socket events
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) { continue; }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    connection = (Connection) key.attachment();
+                    if (key.isWritable()) { flush(connection); }
+                    if (key.isValid() && key.isReadable()) { read(connection); }
+                }
+            }
+        } catch (IOException e) {
+            running = false;
+            writerThread.interrupt();
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                Closeables.closeQuietly(key.channel());
+            }
+            Closeables.closeQuietly(selector);
+        }
+    }
+
+    /**
+     * Accept a pending connection, if any
+     * @throws IOException if the server socket fails
+     */
+    private void accept() throws IOException {
+
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) { return; }
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    /**
+     * Read whatever the connection has sent, and queue every complete request
+     * @param connection connection to read
+     */
+    private void read(Connection connection) {
+
+        try {
+            // client has finished sending - stop reading, but finish what it sent before closing
+            if (connection.channel.read(connection.input) < 0) {
+                connection.inputClosed = true;
+            }
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+        decode(connection);
+    }
+
+    /**
+     * Queue every complete request in the connection's input buffer.
+     * Stops early, and marks the connection stalled, if the queue is full.
+     * @param connection connection to decode
+     */
+    private void decode(Connection connection) {
+
+        if (connection.closed) { return; }
+
+        // a request the queue refused earlier goes first, to keep request order
+        if (connection.stalledRequest != null) {
+            connection.inFlight.incrementAndGet();
+            if (!requests.offer(connection.stalledRequest)) {
+                connection.inFlight.decrementAndGet();
+                stalled.add(connection);
+                return;
+            }
+            connection.stalledRequest = null;
+        }
+
+        ByteBuffer input = connection.input;
+        input.flip();
+        while (input.remaining() >= FloorProtocol.LENGTH_BYTES) {
+
+            // every request has the same length - anything else means the client is confused
+            int length = input.getInt(input.position());
+            if (length != FloorProtocol.REQUEST_LENGTH) {
+                close(connection);
+                return;
+            }
+
+            // wait for the rest of the frame
+            if (input.remaining() < FloorProtocol.LENGTH_BYTES + length) { break; }
+
+            input.getInt();
+            Request request = new Request(connection, input.get(), input.getInt(), input.getInt());
+            connection.inFlight.incrementAndGet();
+            if (!requests.offer(request)) {
+                connection.inFlight.decrementAndGet();
+                connection.stalledRequest = request;
+                stalled.add(connection);
+                break;
+            }
+        }
+        input.compact();
+
+        updateInterest(connection);
+    }
+
+    /**
+     * Write as much pending output as the socket will take
+     * @param connection connection to flush
+     */
+    private void flush(Connection connection) {
+
+        if (connection.closed) { return; }
+        try {
+            connection.writeOutput();
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+        updateInterest(connection);
+    }
+
+    /**
+     * Read while the connection is neither stalled nor backed up, write while it has output.
+     * Once the client has finished sending, close after the last response is written.
+     * @param connection connection to update
+     */
+    private void updateInterest(Connection connection) {
+
+        if (connection.closed) { return; }
+
+        int pending = connection.pendingOutput();
+
+        // half-closed, and every request it sent has been answered
+        if (connection.inputClosed && (connection.stalledRequest == null) &&
+                (connection.inFlight.get() == 0) && (pending == 0)) {
+            close(connection);
+            return;
+        }
+
+        int ops = 0;
+        if (!connection.inputClosed && (connection.stalledRequest == null) && (pending < OUTPUT_HIGH_WATER)) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (pending > 0) { ops |= SelectionKey.OP_WRITE; }
+        connection.key.interestOps(ops);
+    }
+
+    /**
+     * Close a connection. Requests it already queued are executed, but their responses are dropped.
+     * @param connection connection to close
+     */
+    private void close(Connection connection) {
+        connection.closed = true;
+        connection.key.cancel();
+        Closeables.closeQuietly(connection.channel);
+    }
+
+    /**
+     * Writer thread: the only thread that touches the floor.
+     * Executes requests in batches, then wakes the selector once to write the batch's responses.
+     */
+    private void runWriter() {
+
+        List<Request> batch = new ArrayList<>(MAX_BATCH);
+        ByteBuffer response = ByteBuffer.allocate(256);
+
+        try {
+            while (running) {
+
+                // wait for work, then take whatever else is already queued
+                batch.add(requests.take());
+                requests.drainTo(batch, MAX_BATCH - 1);
+
+                for (Request request : batch) {
+                    Connection connection = request.connection;
+                    if (connection.closed) { continue; }
+
+                    response = execute(request, response);
+                    connection.appendOutput(response);
+
+                    // answered - counted only after the response is waiting, so a half-closed connection stays open
+                    connection.inFlight.decrementAndGet();
+
+                    // each connection is flushed once per batch
+                    if (connection.flushScheduled.compareAndSet(false, true)) { flushable.add(connection); }
+                }
+                batch.clear();
+
+                selector.wakeup();
+            }
+        } catch (InterruptedException e) {
+            // server is closing
+        }
+    }
+
+    /**
+     * Execute a request against the floor and encode its response
+     * @param request request to execute
+     * @param response buffer to encode into. replaced by a larger one if too small.
+     * @return buffer holding the response frame, ready to be read
+     */
+    private ByteBuffer execute(Request request, ByteBuffer response) {
+
+        response.clear();
+        response.putInt(0);
+
+        try {
+            FloorCommand.Verb verb = FloorProtocol.verbOf(request.opcode);
+            if (verb != null) {
+                FloorCommand command = FloorCommand.of(verb, request.first, request.second);
+                boolean moved = (leader != null) ? leader.execute(command) : command.applyTo(floor);
+                response.put(FloorProtocol.STATUS_OK);
+                response.put((byte) (moved ? 1 : 0));
+
+            } else if (request.opcode == FloorProtocol.GET_BLOCK_POSITION) {
+                int position = floor.getBlockPosition(request.first);
+                response.put(FloorProtocol.STATUS_OK);
+                response.putInt(position);
+
+            } else if (request.opcode == FloorProtocol.GET_BLOCKS_AT) {
+                List<Integer> blocks = floor.getBlocksAt(request.first);
+
+                // length, status, count, blocks
+                int needed = FloorProtocol.LENGTH_BYTES + 1 + 4 + 4 * blocks.size();
+                if (response.capacity() < needed) {
+                    response = ByteBuffer.allocate(Math.max(needed, response.capacity() * 2));
+                    response.putInt(0);
+                }
+                response.put(FloorProtocol.STATUS_OK);
+                response.putInt(blocks.size());
+                for (int block : blocks) { response.putInt(block); }
+
+            } else {
+                response.put(FloorProtocol.STATUS_ERROR);
+            }
+        } catch (NoSuchElementException e) {
+            response.position(FloorProtocol.LENGTH_BYTES);
+            response.put(FloorProtocol.STATUS_NO_SUCH_ELEMENT);
+        } catch (RuntimeException e) {
+            response.position(FloorProtocol.LENGTH_BYTES);
+            response.put(FloorProtocol.STATUS_ERROR);
+        }
+
+        // fill in length prefix
+        response.putInt(0, response.position() - FloorProtocol.LENGTH_BYTES);
+        response.flip();
+        return response;
+    }
+
+    /**
+     * A decoded request, waiting for the writer
+     */
+    private static final class Request {
+
+        private final Connection connection;
+        private final byte opcode;
+        private final int first;
+        private final int second;
+
+        private Request(Connection connection, byte opcode, int first, int second) {
+            this.connection = connection;
+            this.opcode = opcode;
+            this.first = first;
+            this.second = second;
+        }
+    }
+
+    /**
+     * Per-connection state.
+     * Input, the stalled request and input-closed belong to the selector thread.
+     * The in-flight count is shared with the writer thread.
+     * Output is shared with the writer thread and guarded by the connection's lock.
+     */
+    private static final class Connection {
+
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer input = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+
+        // request the queue refused - must be queued before anything else from this connection
+        private Request stalledRequest;
+
+        // true once the client has shut down its side - nothing more will be read
+        private boolean inputClosed;
+
+        // requests queued for the writer but not yet answered
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        // true while the connection is waiting in the flushable queue
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+        private volatile boolean closed;
+
+        // responses waiting to be sent, in write mode
+        private ByteBuffer output = ByteBuffer.allocate(4096);
+
+        private Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        private synchronized void appendOutput(ByteBuffer response) {
+
+            // grow if needed
+            if (output.remaining() < response.remaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(output.capacity() * 2,
+                        output.position() + response.remaining()));
+                output.flip();
+                larger.put(output);
+                output = larger;
+            }
+            output.put(response);
+        }
+
+        private synchronized int pendingOutput() {
+            return output.position();
+        }
+
+        private synchronized void writeOutput() throws IOException {
+            output.flip();
+            try {
+                channel.write(output);
+            } finally {
+                output.compact();
+            }
+        }
+    }
+
+    /**
+     * Run a standalone floor server.
+     * @param args optional port (default 7070) and position count (default 10)
+     * @throws IOException if the port cannot be bound
+     */
+    public static void main(String[] args) throws IOException {
+
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 7070;
+        int positionCount = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+
+        FloorServer server = start(FactoryFloor.newInstance(positionCount), new InetSocketAddress(port),
+                DEFAULT_QUEUE_CAPACITY);
+        System.out.println(String.format("factory floor with %d positions listening on %s",
+                positionCount, server.getAddress()));
+    }
+}
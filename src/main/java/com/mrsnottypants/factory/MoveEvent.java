@@ -0,0 +1,47 @@
+package com.mrsnottypants.factory;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event for one moveOnto, moveOver, pileOnto or pileOver.
+ * Only moves slower than the threshold are recorded. Recording settings can lower or raise it,
+ * e.g. jdk.jfr.Recording.enable("com.mrsnottypants.factory.Move").withThreshold(...)
+ * With no recording running, a move only pays for the event allocation and its enabled checks.
+ */
+@Name("com.mrsnottypants.factory.Move")
+@Label("Factory Floor Move")
+@Category("Factory Floor")
+@Description("A block move, with the blocks it displaced and the size of the pile it moved")
+@StackTrace(false)
+@Threshold("20 ms")
+class MoveEvent extends Event {
+
+    @Label("Verb")
+    @Description("moveOnto, moveOver, pileOnto or pileOver")
+    String verb;
+
+    @Label("Block From")
+    int blockFrom;
+
+    @Label("Block To")
+    int blockTo;
+
+    @Label("Position From")
+    @Description("Position of the block to move, or -1 if the block is unknown")
+    int positionFrom;
+
+    @Label("Position To")
+    @Description("Position of the block to move onto or over, or -1 if the block is unknown")
+    int positionTo;
+
+    @Label("Blocks Displaced")
+    @Description("Blocks returned to their starting positions before the move")
+    int blocksDisplaced;
+
+    @Label("Pile Size")
+    @Description("Blocks moved together, including the block to move")
+    int pileSize;
+
+    @Label("Moved")
+    boolean moved;
+}
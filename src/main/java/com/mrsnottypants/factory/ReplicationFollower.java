@@ -0,0 +1,338 @@
+package com.mrsnottypants.factory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A read-only copy of a leader's factory floor.
+ *
+ * Starts from a snapshot sent by the leader, then applies the leader's moves in order.
+ * Reports the offset it has applied up to after each message.
+ * If the connection drops, reconnects and resumes from that offset -
+ * or from a fresh snapshot if the leader no longer has the moves it missed.
+ */
+public class ReplicationFollower implements Closeable {
+
+    // wait between reconnect attempts
+    private static final long RECONNECT_MILLIS = 200;
+
+    private final InetSocketAddress leaderAddress;
+    private final Thread receiverThread;
+
+    // guards floor. the receiver holds the write lock while applying a message.
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private FactoryFloor floor;
+
+    // where the receiver is up to - written by the receiver only, guarded by this
+    private long leaderId = ReplicationLeader.NO_LEADER;
+    private long appliedOffset = ReplicationLeader.NO_OFFSET;
+
+    private volatile Socket socket;
+    private volatile boolean running = true;
+
+    /**
+     * Start following a leader
+     * @param leaderAddress address the leader accepts followers on
+     * @return running follower. it has no floor until the leader's snapshot arrives.
+     */
+    public static ReplicationFollower start(InetSocketAddress leaderAddress) {
+
+        if (leaderAddress == null) { throw new IllegalArgumentException("leaderAddress must not be null"); }
+
+        ReplicationFollower follower = new ReplicationFollower(leaderAddress);
+        follower.receiverThread.start();
+        return follower;
+    }
+
+    private ReplicationFollower(InetSocketAddress leaderAddress) {
+        this.leaderAddress = leaderAddress;
+        receiverThread = new Thread(this::runReceiver, "floor-follower-" + leaderAddress);
+        receiverThread.setDaemon(true);
+    }
+
+    /**
+     * Returns the floor position of a given block
+     * @param block block
+     * @return floor position
+     */
+    public int getBlockPosition(int block) {
+        lock.readLock().lock();
+        try {
+            return currentFloor().getBlockPosition(block);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a copy of the blocks at the given position.
+     * Ordering is from bottom block to top block
+     * @param position position of blocks
+     * @return list of blocks
+     */
+    public List<Integer> getBlocksAt(int position) {
+        lock.readLock().lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(currentFloor().getBlocksAt(position)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the leader offset this follower has applied up to
+     * @return applied offset, or -1 before the first snapshot
+     */
+    public synchronized long getAppliedOffset() {
+        return appliedOffset;
+    }
+
+    /**
+     * Wait until this follower has applied the leader's moves up to an offset
+     * @param offset leader offset, as returned by ReplicationLeader.getEndOffset
+     * @param timeout most time to wait
+     * @param unit unit of timeout
+     * @return true if the offset was reached in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean awaitOffset(long offset, long timeout, TimeUnit unit) throws InterruptedException {
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (appliedOffset < offset) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) { return false; }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Stop following. The floor stays readable as of the last applied move.
+     */
+    @Override
+    public void close() {
+
+        running = false;
+        Socket current = socket;
+        if (current != null) { Closeables.closeQuietly(current); }
+        receiverThread.interrupt();
+    }
+
+    @Override
+    public String toString() {
+        lock.readLock().lock();
+        try {
+            return (floor == null) ? "" : floor.toString();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private FactoryFloor currentFloor() {
+        if (floor == null) { throw new IllegalStateException("no snapshot received from leader yet"); }
+        return floor;
+    }
+
+    /**
+     * Receiver thread: connects to the leader, applies what it sends, and reconnects on failure
+     */
+    private void runReceiver() {
+
+        while (running) {
+            try (Socket connection = new Socket()) {
+                socket = connection;
+                connection.setTcpNoDelay(true);
+                connection.connect(leaderAddress);
+                receive(connection);
+            } catch (IOException e) {
+                // leader unreachable or connection dropped - retry below
+            }
+
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Handshake with the leader, then apply messages until the connection fails
+     * @param connection connection to the leader
+     * @throws IOException when the connection fails
+     */
+    private void receive(Socket connection) throws IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+
+        synchronized (this) {
+            out.writeLong(leaderId);
+            out.writeLong(appliedOffset);
+        }
+        out.flush();
+
+        try {
+            while (running) {
+                byte type = in.readByte();
+                if (type == ReplicationLeader.SNAPSHOT) {
+                    applySnapshot(in);
+                } else if (type == ReplicationLeader.BATCH) {
+                    applyBatch(in);
+                } else {
+                    throw new StreamCorruptedException(String.format("unknown message type %d", type));
+                }
+
+                out.writeLong(getAppliedOffset());
+                out.flush();
+            }
+        } catch (StreamCorruptedException e) {
+            // can't trust where we are up to - reconnect with no offset, so the leader sends a fresh snapshot
+            advance(ReplicationLeader.NO_LEADER, ReplicationLeader.NO_OFFSET);
+            throw e;
+        }
+    }
+
+    /**
+     * Replace the floor with a snapshot from the leader.
+     * A malformed snapshot is a StreamCorruptedException, so the connection is dropped and retried.
+     * @param in connection to the leader
+     * @throws IOException if the connection fails or the snapshot is malformed
+     */
+    private void applySnapshot(DataInputStream in) throws IOException {
+
+        long snapshotLeaderId = in.readLong();
+        long offset = in.readLong();
+        int positionCount = in.readInt();
+        if ((offset < 0) || (positionCount < 0)) {
+            throw new StreamCorruptedException(String.format("bad snapshot offset %d or position count %d",
+                    offset, positionCount));
+        }
+
+        // there are as many blocks as positions - never read more than that
+        int remaining = positionCount;
+        List<List<Integer>> positions = new ArrayList<>();
+        for (int position = 0 ; position < positionCount ; position++) {
+            int count = in.readInt();
+            if ((count < 0) || (count > remaining)) {
+                throw new StreamCorruptedException(String.format("bad block count %d at position %d",
+                        count, position));
+            }
+            remaining -= count;
+
+            List<Integer> blocks = new ArrayList<>(count);
+            for (int j = 0 ; j < count ; j++) { blocks.add(in.readInt()); }
+            positions.add(blocks);
+        }
+
+        FactoryFloor snapshot;
+        try {
+            snapshot = FactoryFloor.copyOf(positions);
+        } catch (IllegalArgumentException e) {
+            throw (StreamCorruptedException) new StreamCorruptedException("bad snapshot").initCause(e);
+        }
+
+        lock.writeLock().lock();
+        try {
+            floor = snapshot;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        advance(snapshotLeaderId, offset);
+    }
+
+    /**
+     * Apply a batch of the leader's moves.
+     * A malformed batch is a StreamCorruptedException, so the connection is dropped and retried.
+     * The whole batch is checked before any move is applied, so the floor is never left half-way through one.
+     * @param in connection to the leader
+     * @throws IOException if the connection fails or the batch is malformed
+     */
+    private void applyBatch(DataInputStream in) throws IOException {
+
+        long start = in.readLong();
+        int count = in.readInt();
+        if (count < 0) { throw new StreamCorruptedException(String.format("bad move count %d", count)); }
+
+        // a batch can only follow a snapshot
+        int positionCount = getPositionCount();
+        if (positionCount < 0) { throw new StreamCorruptedException("batch before snapshot"); }
+
+        List<FloorCommand> batch = new ArrayList<>();
+        for (int j = 0 ; j < count ; j++) {
+            FloorCommand.Verb verb = FloorProtocol.verbOf(in.readByte());
+            int blockFrom = in.readInt();
+            int blockTo = in.readInt();
+            if ((verb == null) || (blockFrom < 0) || (blockFrom >= positionCount) ||
+                    (blockTo < 0) || (blockTo >= positionCount)) {
+                throw new StreamCorruptedException(String.format("bad move %d in batch", j));
+            }
+            batch.add(FloorCommand.of(verb, blockFrom, blockTo));
+        }
+
+        // the leader sends from the offset we reported - anything else means we have lost our place
+        long current = getAppliedOffset();
+        if (start != current) {
+            throw new StreamCorruptedException(String.format("batch starts at %d, applied up to %d",
+                    start, current));
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (FloorCommand command : batch) { command.applyTo(floor); }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        advance(leaderId, start + count);
+    }
+
+    /**
+     * Returns the follower floor's position count
+     * @return position count, or -1 before the first snapshot
+     */
+    private int getPositionCount() {
+        lock.readLock().lock();
+        try {
+            return (floor == null) ? -1 : floor.getPositionCount();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private synchronized void advance(long newLeaderId, long offset) {
+        leaderId = newLeaderId;
+        appliedOffset = offset;
+        notifyAll();
+    }
+
+    /**
+     * Run a follower, printing its floor each time it catches up with the leader.
+     * @param args leader host and follower port
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static void main(String[] args) throws InterruptedException {
+
+        if (args.length < 2) {
+            System.err.println("usage: ReplicationFollower <leader host> <leader follower port>");
+            return;
+        }
+
+        ReplicationFollower follower = start(new InetSocketAddress(args[0], Integer.parseInt(args[1])));
+        long printed = ReplicationLeader.NO_OFFSET;
+        while (true) {
+            follower.awaitOffset(printed + 1, 1, TimeUnit.SECONDS);
+            long applied = follower.getAppliedOffset();
+            if (applied != printed) {
+                System.out.println(String.format("applied %d | %s", applied, follower));
+                printed = applied;
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.mrsnottypants.factory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Owns a factory floor and streams every move made on it to read-only followers.
+ *
+ * Moves are deterministic, so a follower that applies the leader's moves in order ends up with the same floor.
+ * The leader keeps the most recent moves in an in-memory log. Each move that changes the floor gets the next offset.
+ * A follower reports the offset it has applied up to, and is sent the log from there in batches.
+ * A follower that is new, or has fallen behind the retained log, is first sent a snapshot of the floor.
+ *
+ * Wire format, leader to follower, after the follower's handshake:
+ * SNAPSHOT - type byte, leader id, offset, position count, then for each position a block count and blocks.
+ * BATCH - type byte, start offset, move count, then for each move an opcode and two blocks.
+ * Follower to leader: a handshake of the leader id and offset it last applied,
+ * then the offset it has applied up to after each message.
+ */
+public class ReplicationLeader implements Closeable {
+
+    // message types, leader to follower
+    static final byte SNAPSHOT = 1;
+    static final byte BATCH = 2;
+
+    // follower handshake when it has nothing applied
+    static final long NO_LEADER = 0;
+    static final long NO_OFFSET = -1;
+
+    // most moves sent in one batch
+    private static final int MAX_BATCH = 4096;
+
+    // wait before accepting again after a failed accept
+    private static final long ACCEPT_RETRY_MILLIS = 200;
+
+    // identifies this leader, so a follower of a previous leader starts over from a snapshot
+    private final long leaderId = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+
+    private final FactoryFloor floor;
+    private final int retention;
+    private final ServerSocket serverSocket;
+    private final Thread acceptThread;
+
+    // recent moves, guarded by this. log.get(0) has offset baseOffset.
+    private final List<FloorCommand> log = new ArrayList<>();
+    private long baseOffset = 0;
+
+    // follower -> offset it has applied up to
+    private final Map<String, Long> appliedOffsets = new ConcurrentHashMap<>();
+
+    // open follower connections, guarded by itself
+    private final Set<Socket> followers = new HashSet<>();
+
+    private volatile boolean running = true;
+
+    /**
+     * Start leading a floor.
+     * From here on the floor must only be changed through the leader.
+     * @param floor floor to replicate
+     * @param address address followers connect to. port 0 picks a free port.
+     * @param retention moves kept for followers that fall behind. older followers get a snapshot instead.
+     * @return running leader
+     * @throws IOException if the address cannot be bound
+     */
+    public static ReplicationLeader start(FactoryFloor floor, InetSocketAddress address, int retention)
+            throws IOException {
+
+        if (floor == null) { throw new IllegalArgumentException("floor must not be null"); }
+        if (retention < 1) { throw new IllegalArgumentException("retention must be positive"); }
+
+        ReplicationLeader leader = new ReplicationLeader(floor, address, retention);
+        leader.acceptThread.start();
+        return leader;
+    }
+
+    private ReplicationLeader(FactoryFloor floor, InetSocketAddress address, int retention) throws IOException {
+
+        this.floor = floor;
+        this.retention = retention;
+
+        // a restarted leader can take over its predecessor's address straight away
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(address);
+        acceptThread = new Thread(this::runAccept, "floor-replication-accept");
+        acceptThread.setDaemon(true);
+    }
+
+    /**
+     * Returns the address followers connect to
+     * @return listening address
+     */
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    /**
+     * Apply a move to the floor, and log it for followers if it changed the floor
+     * @param command move to apply
+     * @return true if one or more blocks are moved
+     */
+    public synchronized boolean execute(FloorCommand command) {
+
+        boolean moved = command.applyTo(floor);
+        if (moved) {
+            log.add(command);
+
+            // trim in bulk, so trimming costs little per move
+            if (log.size() >= 2 * retention) {
+                int dropped = log.size() - retention;
+                log.subList(0, dropped).clear();
+                baseOffset += dropped;
+            }
+            notifyAll();
+        }
+        return moved;
+    }
+
+    /**
+     * Returns the floor position of a given block
+     * @param block block
+     * @return floor position
+     */
+    public synchronized int getBlockPosition(int block) {
+        return floor.getBlockPosition(block);
+    }
+
+    /**
+     * Returns a copy of the blocks at the given position.
+     * Ordering is from bottom block to top block
+     * @param position position of blocks
+     * @return list of blocks
+     */
+    public synchronized List<Integer> getBlocksAt(int position) {
+        return Collections.unmodifiableList(new ArrayList<>(floor.getBlocksAt(position)));
+    }
+
+    /**
+     * Returns the offset the next logged move will get - the count of moves that changed the floor
+     * @return end of the log
+     */
+    public synchronized long getEndOffset() {
+        return baseOffset + log.size();
+    }
+
+    /**
+     * Returns, for each connected follower, the offset it has applied up to
+     * @return follower address -> applied offset
+     */
+    public Map<String, Long> getAppliedOffsets() {
+        return Collections.unmodifiableMap(new HashMap<>(appliedOffsets));
+    }
+
+    /**
+     * The floor being led. Only the thread that calls execute may read it without holding the leader's lock.
+     * @return floor
+     */
+    FactoryFloor getFloor() {
+        return floor;
+    }
+
+    /**
+     * Stop leading. Followers are disconnected.
+     */
+    @Override
+    public void close() {
+
+        running = false;
+        Closeables.closeQuietly(serverSocket);
+        synchronized (followers) {
+            for (Socket socket : followers) { Closeables.closeQuietly(socket); }
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+
+        // the port is only released once the accept thread sees the close
+        try {
+            acceptThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Accept thread: starts a sender thread for each follower
+     */
+    private void runAccept() {
+
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+
+                Thread sender = new Thread(() -> runSender(socket),
+                        "floor-replication-" + socket.getRemoteSocketAddress());
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                // closed - stop. a failed accept - pause, so a lasting failure doesn't spin this thread
+                if (!running || serverSocket.isClosed()) { return; }
+                try {
+                    Thread.sleep(ACCEPT_RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sender thread: streams the log to one follower.
+     * Waits for the follower to acknowledge each message before sending the next,
+     * so moves made meanwhile collect into the next, larger batch.
+     * @param socket follower connection
+     */
+    private void runSender(Socket socket) {
+
+        String name = String.valueOf(socket.getRemoteSocketAddress());
+        synchronized (followers) {
+            if (!running) {
+                Closeables.closeQuietly(socket);
+                return;
+            }
+            followers.add(socket);
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            // handshake - where the follower is up to, and under which leader
+            long followerLeaderId = in.readLong();
+            long next = in.readLong();
+            if (followerLeaderId != leaderId) { next = NO_OFFSET; }
+
+            while (running) {
+
+                List<List<Integer>> snapshot = null;
+                FloorCommand[] batch = null;
+                long start;
+
+                // wait for moves the follower hasn't seen, then copy them out
+                synchronized (this) {
+                    while (running && (next == baseOffset + log.size())) { wait(); }
+                    if (!running) { break; }
+
+                    if ((next < baseOffset) || (next > baseOffset + log.size())) {
+                        snapshot = floor.snapshot();
+                        start = baseOffset + log.size();
+                    } else {
+                        int from = (int) (next - baseOffset);
+                        int to = Math.min(log.size(), from + MAX_BATCH);
+                        batch = log.subList(from, to).toArray(new FloorCommand[to - from]);
+                        start = next;
+                    }
+                }
+
+                if (snapshot != null) {
+                    writeSnapshot(out, start, snapshot);
+                } else {
+                    writeBatch(out, start, batch);
+                }
+                out.flush();
+
+                next = in.readLong();
+                appliedOffsets.put(name, next);
+            }
+        } catch (IOException e) {
+            // follower went away - it reconnects and resumes from its applied offset
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            appliedOffsets.remove(name);
+            synchronized (followers) {
+                followers.remove(socket);
+            }
+            Closeables.closeQuietly(socket);
+        }
+    }
+
+    private void writeSnapshot(DataOutputStream out, long offset, List<List<Integer>> positions) throws IOException {
+        out.writeByte(SNAPSHOT);
+        out.writeLong(leaderId);
+        out.writeLong(offset);
+        out.writeInt(positions.size());
+        for (List<Integer> blocks : positions) {
+            out.writeInt(blocks.size());
+            for (int block : blocks) { out.writeInt(block); }
+        }
+    }
+
+    private static void writeBatch(DataOutputStream out, long start, FloorCommand[] batch) throws IOException {
+        out.writeByte(BATCH);
+        out.writeLong(start);
+        out.writeInt(batch.length);
+        for (FloorCommand command : batch) {
+            out.writeByte(FloorProtocol.opcodeOf(command.getVerb()));
+            out.writeInt(command.getBlockFrom());
+            out.writeInt(command.getBlockTo());
+        }
+    }
+
+    /**
+     * Run a leader, with a floor server taking moves from clients.
+     * @param args optional client port (default 7070), follower port (default 7071),
+     *             position count (default 10) and retention (default 100000)
+     * @throws IOException if a port cannot be bound
+     */
+    public static void main(String[] args) throws IOException {
+
+        int clientPort = (args.length > 0) ? Integer.parseInt(args[0]) : 7070;
+        int followerPort = (args.length > 1) ? Integer.parseInt(args[1]) : 7071;
+        int positionCount = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+        int retention = (args.length > 3) ? Integer.parseInt(args[3]) : 100000;
+
+        ReplicationLeader leader = start(FactoryFloor.newInstance(positionCount),
+                new InetSocketAddress(followerPort), retention);
+        FloorServer server = FloorServer.start(leader, new InetSocketAddress(clientPort),
+                FloorServer.DEFAULT_QUEUE_CAPACITY);
+        System.out.println(String.format("leading %d positions - clients on %s, followers on %s",
+                positionCount, server.getAddress(), leader.getAddress()));
+    }
+}
@@ -6,6 +6,7 @@ import org.junit.Test;
 import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 /**
  * Created by Eric on 7/28/2016.
@@ -373,6 +374,72 @@ public class FactoryFloorTest {
         assertTrue(Exceptions.isExpected(floor::pileOver, 0, 4, NoSuchElementException.class));
     }
 
+    @Test
+    public void testResetAll() {
+
+        FactoryFloor floor = FactoryFloor.newInstance(4);
+        assertTrue(floor.moveOnto(1, 2));
+        assertTrue(floor.moveOver(3, 2));
+        assertTrue(floor.pileOnto(1, 0));
+        floor.resetAll();
+
+        // expect - 0: 0 | 1: 1 | 2: 2 | 3: 3
+        for (int position = 0 ; position < 4 ; position++) {
+            assertBlocks(floor, position, Arrays.asList(position));
+            assertEquals(position, floor.getBlockPosition(position));
+        }
+    }
+
+    @Test
+    public void testResetAllUntouched() {
+
+        FactoryFloor floor = FactoryFloor.newInstance(4);
+        floor.resetAll();
+        assertEquals(FactoryFloor.newInstance(4).toString(), floor.toString());
+    }
+
+    @Test
+    public void testResetAllRandom() {
+
+        Random random = new Random(28);
+        FactoryFloor floor = FactoryFloor.newInstance(20);
+        String start = floor.toString();
+
+        // reset after runs of every length, including runs that leave blocks back where they started
+        for (int run = 0 ; run < 50 ; run++) {
+            for (int j = 0 ; j < run ; j++) {
+                int blockFrom = random.nextInt(20);
+                int blockTo = random.nextInt(20);
+                switch (random.nextInt(4)) {
+                    case 0: floor.moveOnto(blockFrom, blockTo); break;
+                    case 1: floor.moveOver(blockFrom, blockTo); break;
+                    case 2: floor.pileOnto(blockFrom, blockTo); break;
+                    default: floor.pileOver(blockFrom, blockTo); break;
+                }
+            }
+            floor.resetAll();
+            assertEquals(start, floor.toString());
+            for (int block = 0 ; block < 20 ; block++) {
+                assertEquals(block, floor.getBlockPosition(block));
+            }
+        }
+    }
+
+    @Test
+    public void testMoveAfterResetAll() {
+
+        FactoryFloor floor = FactoryFloor.newInstance(4);
+        assertTrue(floor.moveOnto(1, 2));
+        floor.resetAll();
+        assertTrue(floor.moveOnto(3, 2));
+
+        // expect - 0: 0 | 1: 1 | 2: 2 3 | 3:
+        assertBlocks(floor, 0, Arrays.asList(0));
+        assertBlocks(floor, 1, Arrays.asList(1));
+        assertBlocks(floor, 2, Arrays.asList(2, 3));
+        assertBlocks(floor, 3, Arrays.asList());
+    }
+
     @Test
     public void testToString() {
         FactoryFloor floor = FactoryFloor.newInstance(2);
@@ -0,0 +1,94 @@
+package com.mrsnottypants.factory;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.concurrent.*;
+
+/**
+ * Exercises FloorPool.
+ */
+public class FloorPoolTest {
+
+    @Test
+    public void testAcquireNew() {
+
+        FloorPool pool = FloorPool.newInstance(2);
+        FactoryFloor floor = pool.acquire(4);
+        assertEquals(4, floor.getPositionCount());
+        assertEquals(FactoryFloor.newInstance(4).toString(), floor.toString());
+    }
+
+    @Test
+    public void testReleasedFloorIsRecycledReset() {
+
+        FloorPool pool = FloorPool.newInstance(2);
+        FactoryFloor floor = pool.acquire(4);
+        floor.moveOnto(1, 2);
+        floor.pileOver(2, 3);
+        pool.release(floor);
+
+        FactoryFloor recycled = pool.acquire(4);
+        assertSame(floor, recycled);
+        assertEquals(FactoryFloor.newInstance(4).toString(), recycled.toString());
+    }
+
+    @Test
+    public void testPositionCountsKeptApart() {
+
+        FloorPool pool = FloorPool.newInstance(2);
+        FactoryFloor small = pool.acquire(4);
+        pool.release(small);
+
+        assertNotSame(small, pool.acquire(8));
+        assertSame(small, pool.acquire(4));
+    }
+
+    @Test
+    public void testMaxIdle() {
+
+        FloorPool pool = FloorPool.newInstance(1);
+        FactoryFloor first = pool.acquire(4);
+        FactoryFloor second = pool.acquire(4);
+        pool.release(first);
+        pool.release(second);
+
+        // only the first is kept
+        assertSame(first, pool.acquire(4));
+        assertNotSame(second, pool.acquire(4));
+    }
+
+    @Test
+    public void testReleaseTwice() {
+
+        FloorPool pool = FloorPool.newInstance(4);
+        FactoryFloor floor = pool.acquire(4);
+        pool.release(floor);
+        pool.release(floor);
+
+        // only one acquire gets the released floor
+        assertSame(floor, pool.acquire(4));
+        assertNotSame(floor, pool.acquire(4));
+    }
+
+    @Test
+    public void testIllegal() {
+        assertTrue(Exceptions.isExpected(FloorPool::newInstance, -1, IllegalArgumentException.class));
+    }
+
+    @Test
+    public void testThreadsKeepTheirOwnFloors() throws Exception {
+
+        FloorPool pool = FloorPool.newInstance(2);
+        FactoryFloor floor = pool.acquire(4);
+        pool.release(floor);
+
+        // another thread doesn't see this thread's idle floor
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        FactoryFloor other = executor.submit(() -> pool.acquire(4)).get(10, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertNotSame(floor, other);
+        assertSame(floor, pool.acquire(4));
+    }
+}
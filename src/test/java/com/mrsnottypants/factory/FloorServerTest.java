@@ -0,0 +1,206 @@
+package com.mrsnottypants.factory;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Exercises FloorServer and FloorClient over loopback.
+ */
+public class FloorServerTest {
+
+    private static final InetSocketAddress LOOPBACK = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    // random moves over a floor of the given size
+    private static List<FloorCommand> randomCommands(Random random, int positionCount, int count) {
+        FloorCommand.Verb[] verbs = FloorCommand.Verb.values();
+        List<FloorCommand> commands = new ArrayList<>(count);
+        for (int j = 0 ; j < count ; j++) {
+            commands.add(FloorCommand.of(verbs[random.nextInt(verbs.length)],
+                    random.nextInt(positionCount), random.nextInt(positionCount)));
+        }
+        return commands;
+    }
+
+    // assert the remote floor matches a local floor
+    private static void assertSameFloor(FactoryFloor expected, FloorClient client, int positionCount)
+            throws Exception {
+        for (int position = 0 ; position < positionCount ; position++) {
+            assertEquals(expected.getBlocksAt(position), client.getBlocksAt(position));
+            assertEquals(expected.getBlockPosition(position), client.getBlockPosition(position));
+        }
+    }
+
+    @Test
+    public void testSingleCommands() throws Exception {
+
+        try (FloorServer server = FloorServer.start(FactoryFloor.newInstance(4), LOOPBACK, 16);
+             FloorClient client = FloorClient.connect(server.getAddress())) {
+
+            assertTrue(client.moveOnto(1, 2));
+            assertTrue(client.moveOver(3, 2));
+            assertFalse(client.pileOnto(2, 1));
+            assertTrue(client.pileOver(1, 0));
+
+            // expect - 0: 0 1 3 | 1: | 2: 2 | 3:
+            assertEquals(Arrays.asList(0, 1, 3), client.getBlocksAt(0));
+            assertEquals(Arrays.asList(), client.getBlocksAt(1));
+            assertEquals(Arrays.asList(2), client.getBlocksAt(2));
+            assertEquals(0, client.getBlockPosition(3));
+        }
+    }
+
+    @Test
+    public void testNoSuchElement() throws Exception {
+
+        try (FloorServer server = FloorServer.start(FactoryFloor.newInstance(4), LOOPBACK, 16);
+             FloorClient client = FloorClient.connect(server.getAddress())) {
+
+            assertTrue(Exceptions.isExpected(pos -> get(() -> client.getBlocksAt(pos)), 4,
+                    NoSuchElementException.class));
+            assertTrue(Exceptions.isExpected(block -> get(() -> client.getBlockPosition(block)), -1,
+                    NoSuchElementException.class));
+            assertTrue(Exceptions.isExpected(block -> get(() -> client.moveOnto(block, 0)), 4,
+                    NoSuchElementException.class));
+
+            // connection is still usable
+            assertTrue(client.moveOnto(0, 1));
+        }
+    }
+
+    @Test
+    public void testPipelineMatchesLocalFloor() throws Exception {
+
+        List<FloorCommand> commands = randomCommands(new Random(26), 16, 5000);
+        FactoryFloor expected = FactoryFloor.newInstance(16);
+
+        try (FloorServer server = FloorServer.start(FactoryFloor.newInstance(16), LOOPBACK, 64);
+             FloorClient client = FloorClient.connect(server.getAddress())) {
+
+            boolean[] moved = client.pipeline(commands);
+            for (int j = 0 ; j < commands.size() ; j++) {
+                assertEquals(commands.get(j).applyTo(expected), moved[j]);
+            }
+            assertSameFloor(expected, client, 16);
+        }
+    }
+
+    @Test
+    public void testBackpressureWithTinyQueue() throws Exception {
+
+        List<FloorCommand> commands = randomCommands(new Random(27), 8, 3000);
+        FactoryFloor expected = FactoryFloor.newInstance(8);
+        for (FloorCommand command : commands) { command.applyTo(expected); }
+
+        try (FloorServer server = FloorServer.start(FactoryFloor.newInstance(8), LOOPBACK, 1);
+             FloorClient client = FloorClient.connect(server.getAddress())) {
+
+            client.pipeline(commands);
+            assertSameFloor(expected, client, 8);
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testHalfCloseAfterPipelining() throws Exception {
+
+        int count = 20000;
+
+        try (FloorServer server = FloorServer.start(FactoryFloor.newInstance(4), LOOPBACK, 1);
+             Socket socket = new Socket()) {
+
+            socket.connect(server.getAddress());
+
+            // send every request, then shut down the sending side - on its own thread, so responses can drain
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            Future<Void> sent = executor.submit(() -> {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                for (int j = 0 ; j < count ; j++) {
+                    out.writeInt(FloorProtocol.REQUEST_LENGTH);
+                    out.writeByte(FloorProtocol.MOVE_OVER);
+                    out.writeInt(j % 4);
+                    out.writeInt((j + 1) % 4);
+                }
+                out.flush();
+                socket.shutdownOutput();
+                return null;
+            });
+
+            // every request is answered before the server closes
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            int responses = 0;
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                assertEquals(2, length);
+                assertEquals(FloorProtocol.STATUS_OK, in.readByte());
+                in.readByte();
+                responses++;
+            }
+            sent.get(10, TimeUnit.SECONDS);
+            executor.shutdown();
+
+            assertEquals(count, responses);
+        }
+    }
+
+    @Test
+    public void testManyConcurrentClients() throws Exception {
+
+        int positionCount = 32;
+        int clientCount = 24;
+
+        try (FloorServer server = FloorServer.start(FactoryFloor.newInstance(positionCount), LOOPBACK, 128)) {
+
+            ExecutorService executor = Executors.newFixedThreadPool(clientCount);
+            List<Future<Void>> results = new ArrayList<>();
+            for (int j = 0 ; j < clientCount ; j++) {
+                List<FloorCommand> commands = randomCommands(new Random(j), positionCount, 2000);
+                results.add(executor.submit(() -> {
+                    try (FloorClient client = FloorClient.connect(server.getAddress())) {
+                        client.pipeline(commands);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> result : results) { result.get(30, TimeUnit.SECONDS); }
+            executor.shutdown();
+
+            // interleaving is up to the server, but the floor must still be consistent
+            try (FloorClient client = FloorClient.connect(server.getAddress())) {
+                int blockCount = 0;
+                for (int position = 0 ; position < positionCount ; position++) {
+                    for (int block : client.getBlocksAt(position)) {
+                        assertEquals(position, client.getBlockPosition(block));
+                        blockCount++;
+                    }
+                }
+                assertEquals(positionCount, blockCount);
+            }
+        }
+    }
+
+    // checked-call adapter for Exceptions.isExpected
+    private interface RemoteCall<T> {
+        T call() throws Exception;
+    }
+
+    private static <T> T get(RemoteCall<T> call) {
+        try {
+            return call.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
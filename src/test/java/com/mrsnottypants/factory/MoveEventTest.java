@@ -0,0 +1,122 @@
+package com.mrsnottypants.factory;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Exercises the flight recorder events emitted by FactoryFloor moves.
+ */
+public class MoveEventTest {
+
+    private static final String MOVE = "com.mrsnottypants.factory.Move";
+
+    // record moves made by the action, with the given threshold
+    private static List<RecordedEvent> record(Duration threshold, Runnable action) throws Exception {
+
+        Path file = Files.createTempFile("moves", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(MOVE).withThreshold(threshold);
+            recording.start();
+            action.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testMoveEvents() throws Exception {
+
+        List<RecordedEvent> events = record(Duration.ZERO, () -> {
+            FactoryFloor floor = FactoryFloor.newInstance(4);
+            floor.moveOnto(1, 2);
+            floor.moveOver(3, 2);
+            floor.pileOnto(2, 2);
+            floor.moveOnto(2, 0);
+        });
+        assertEquals(4, events.size());
+
+        // moveOnto 1 2 - 0: 0 | 1: | 2: 2 1 | 3: 3
+        RecordedEvent event = events.get(0);
+        assertEquals("moveOnto", event.getString("verb"));
+        assertEquals(1, event.getInt("blockFrom"));
+        assertEquals(2, event.getInt("blockTo"));
+        assertEquals(1, event.getInt("positionFrom"));
+        assertEquals(2, event.getInt("positionTo"));
+        assertEquals(0, event.getInt("blocksDisplaced"));
+        assertEquals(1, event.getInt("pileSize"));
+        assertTrue(event.getBoolean("moved"));
+        assertFalse(event.getDuration().isNegative());
+
+        // moveOver 3 2 - 0: 0 | 1: | 2: 2 1 3 | 3:
+        assertEquals("moveOver", events.get(1).getString("verb"));
+        assertEquals(1, events.get(1).getInt("pileSize"));
+
+        // pileOnto 2 2 - nothing moves, but the block's position is still recorded
+        assertEquals("pileOnto", events.get(2).getString("verb"));
+        assertFalse(events.get(2).getBoolean("moved"));
+        assertEquals(2, events.get(2).getInt("positionFrom"));
+        assertEquals(2, events.get(2).getInt("positionTo"));
+
+        // moveOnto 2 0 - 1 and 3 go home, 2 moves alone
+        event = events.get(3);
+        assertEquals(2, event.getInt("positionFrom"));
+        assertEquals(0, event.getInt("positionTo"));
+        assertEquals(2, event.getInt("blocksDisplaced"));
+        assertEquals(1, event.getInt("pileSize"));
+    }
+
+    @Test
+    public void testPileSize() throws Exception {
+
+        List<RecordedEvent> events = record(Duration.ZERO, () -> {
+            FactoryFloor floor = FactoryFloor.newInstance(4);
+            floor.moveOnto(1, 2);
+            floor.moveOver(3, 2);
+            floor.pileOver(2, 0);
+        });
+
+        // pileOver 2 0 - 2, 1 and 3 move together
+        RecordedEvent event = events.get(2);
+        assertEquals("pileOver", event.getString("verb"));
+        assertEquals(0, event.getInt("blocksDisplaced"));
+        assertEquals(3, event.getInt("pileSize"));
+    }
+
+    @Test
+    public void testUnknownBlock() throws Exception {
+
+        List<RecordedEvent> events = record(Duration.ZERO, () -> {
+            FactoryFloor floor = FactoryFloor.newInstance(4);
+            assertTrue(Exceptions.isExpected(floor::moveOnto, 0, 4, NoSuchElementException.class));
+        });
+
+        // failed moves are still traced
+        assertEquals(1, events.size());
+        assertEquals(0, events.get(0).getInt("positionFrom"));
+        assertEquals(-1, events.get(0).getInt("positionTo"));
+        assertFalse(events.get(0).getBoolean("moved"));
+    }
+
+    @Test
+    public void testThresholdFiltersFastMoves() throws Exception {
+
+        List<RecordedEvent> events = record(Duration.ofSeconds(10), () -> {
+            FactoryFloor floor = FactoryFloor.newInstance(4);
+            floor.moveOnto(1, 2);
+        });
+        assertEquals(0, events.size());
+    }
+}
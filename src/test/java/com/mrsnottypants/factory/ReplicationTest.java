@@ -0,0 +1,267 @@
+package com.mrsnottypants.factory;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exercises ReplicationLeader and ReplicationFollower over loopback.
+ */
+public class ReplicationTest {
+
+    private static final InetSocketAddress LOOPBACK = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    // random moves over a floor of the given size
+    private static void executeRandom(ReplicationLeader leader, Random random, int positionCount, int count) {
+        FloorCommand.Verb[] verbs = FloorCommand.Verb.values();
+        for (int j = 0 ; j < count ; j++) {
+            leader.execute(FloorCommand.of(verbs[random.nextInt(verbs.length)],
+                    random.nextInt(positionCount), random.nextInt(positionCount)));
+        }
+    }
+
+    // wait for the follower to catch up, then assert it matches the leader
+    private static void assertCaughtUp(ReplicationLeader leader, ReplicationFollower follower, int positionCount)
+            throws Exception {
+        assertTrue(follower.awaitOffset(leader.getEndOffset(), 10, TimeUnit.SECONDS));
+        for (int position = 0 ; position < positionCount ; position++) {
+            assertEquals(leader.getBlocksAt(position), follower.getBlocksAt(position));
+            assertEquals(leader.getBlockPosition(position), follower.getBlockPosition(position));
+        }
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() {
+
+        FactoryFloor floor = FactoryFloor.newInstance(4);
+        floor.moveOnto(1, 2);
+        floor.moveOver(3, 2);
+
+        FactoryFloor copy = FactoryFloor.copyOf(floor.snapshot());
+        assertEquals(floor.toString(), copy.toString());
+        assertEquals(2, copy.getBlockPosition(3));
+
+        // copies are independent
+        copy.pileOnto(1, 0);
+        assertEquals(Arrays.asList(2, 1, 3), floor.getBlocksAt(2));
+    }
+
+    @Test
+    public void testSnapshotIllegal() {
+        assertTrue(Exceptions.isExpected(FactoryFloor::copyOf,
+                Arrays.asList(Arrays.asList(0, 1), Arrays.asList(1)), IllegalArgumentException.class));
+        assertTrue(Exceptions.isExpected(FactoryFloor::copyOf,
+                Arrays.asList(Arrays.asList(0), Arrays.asList(2)), IllegalArgumentException.class));
+        assertTrue(Exceptions.isExpected(FactoryFloor::copyOf,
+                Arrays.asList(Arrays.asList(0), Arrays.asList()), IllegalArgumentException.class));
+    }
+
+    @Test
+    public void testFollowersMatchLeader() throws Exception {
+
+        try (ReplicationLeader leader = ReplicationLeader.start(FactoryFloor.newInstance(16), LOOPBACK, 100000)) {
+
+            List<ReplicationFollower> followers = new ArrayList<>();
+            for (int j = 0 ; j < 3 ; j++) { followers.add(ReplicationFollower.start(leader.getAddress())); }
+
+            executeRandom(leader, new Random(27), 16, 5000);
+            for (ReplicationFollower follower : followers) { assertCaughtUp(leader, follower, 16); }
+
+            // every follower reports its offset back to the leader
+            long deadline = System.currentTimeMillis() + 10000;
+            List<Long> expected = Arrays.asList(leader.getEndOffset(), leader.getEndOffset(), leader.getEndOffset());
+            while ((System.currentTimeMillis() < deadline) &&
+                    !new ArrayList<>(leader.getAppliedOffsets().values()).equals(expected)) {
+                Thread.sleep(10);
+            }
+            assertEquals(expected, new ArrayList<>(leader.getAppliedOffsets().values()));
+
+            for (ReplicationFollower follower : followers) { follower.close(); }
+        }
+    }
+
+    @Test
+    public void testLateFollowerCatchesUpFromSnapshot() throws Exception {
+
+        // retain only a few moves, so a late follower must start from a snapshot
+        try (ReplicationLeader leader = ReplicationLeader.start(FactoryFloor.newInstance(12), LOOPBACK, 10)) {
+
+            executeRandom(leader, new Random(1), 12, 1000);
+
+            try (ReplicationFollower follower = ReplicationFollower.start(leader.getAddress())) {
+                assertCaughtUp(leader, follower, 12);
+
+                // then follows the log tail
+                executeRandom(leader, new Random(2), 12, 1000);
+                assertCaughtUp(leader, follower, 12);
+            }
+        }
+    }
+
+    @Test
+    public void testFollowerOfNewLeaderStartsOver() throws Exception {
+
+        ReplicationLeader first = ReplicationLeader.start(FactoryFloor.newInstance(8), LOOPBACK, 100);
+        InetSocketAddress address = first.getAddress();
+        executeRandom(first, new Random(3), 8, 20);
+
+        try (ReplicationFollower follower = ReplicationFollower.start(address)) {
+            assertCaughtUp(first, follower, 8);
+            first.close();
+
+            // a different floor on the same address - offsets from the first leader mean nothing.
+            // the second log is longer, so the follower can only reach its end through a new snapshot.
+            try (ReplicationLeader second = ReplicationLeader.start(FactoryFloor.newInstance(8), address, 1000)) {
+                executeRandom(second, new Random(4), 8, 200);
+                assertCaughtUp(second, follower, 8);
+            }
+        }
+    }
+
+    @Test
+    public void testServerMovesReachFollowers() throws Exception {
+
+        try (ReplicationLeader leader = ReplicationLeader.start(FactoryFloor.newInstance(4), LOOPBACK, 100);
+             FloorServer server = FloorServer.start(leader, LOOPBACK, 16);
+             FloorClient client = FloorClient.connect(server.getAddress());
+             ReplicationFollower follower = ReplicationFollower.start(leader.getAddress())) {
+
+            assertTrue(client.moveOnto(1, 2));
+            assertTrue(client.moveOver(3, 2));
+            assertFalse(client.pileOnto(2, 1));
+
+            // only moves that changed the floor are logged
+            assertEquals(2, leader.getEndOffset());
+            assertCaughtUp(leader, follower, 4);
+            assertEquals(Arrays.asList(2, 1, 3), follower.getBlocksAt(2));
+        }
+    }
+
+    // write an identity snapshot of the given size, as a leader would
+    private static void writeSnapshot(DataOutputStream out, long leaderId, long offset, int positionCount)
+            throws IOException {
+        out.writeByte(ReplicationLeader.SNAPSHOT);
+        out.writeLong(leaderId);
+        out.writeLong(offset);
+        out.writeInt(positionCount);
+        for (int position = 0 ; position < positionCount ; position++) {
+            out.writeInt(1);
+            out.writeInt(position);
+        }
+    }
+
+    // accept a follower on a hand-driven leader, and assert its handshake
+    private static Socket acceptFollower(ServerSocket leader, long leaderId, long offset) throws IOException {
+        Socket socket = leader.accept();
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        assertEquals(leaderId, in.readLong());
+        assertEquals(offset, in.readLong());
+        return socket;
+    }
+
+    @Test(timeout = 30000)
+    public void testBadSnapshotForcesFreshSnapshot() throws Exception {
+
+        try (ServerSocket leader = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ReplicationFollower follower = ReplicationFollower.start(
+                     (InetSocketAddress) leader.getLocalSocketAddress())) {
+
+            // negative block count
+            try (Socket socket = acceptFollower(leader, ReplicationLeader.NO_LEADER, ReplicationLeader.NO_OFFSET)) {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeByte(ReplicationLeader.SNAPSHOT);
+                out.writeLong(7);
+                out.writeLong(5);
+                out.writeInt(2);
+                out.writeInt(-1);
+                out.flush();
+            }
+
+            // the follower comes back, still with nothing applied
+            try (Socket socket = acceptFollower(leader, ReplicationLeader.NO_LEADER, ReplicationLeader.NO_OFFSET)) {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                writeSnapshot(out, 7, 5, 4);
+                out.flush();
+                assertTrue(follower.awaitOffset(5, 10, TimeUnit.SECONDS));
+                assertEquals(Arrays.asList(3), follower.getBlocksAt(3));
+            }
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testBadBatchForcesFreshSnapshot() throws Exception {
+
+        try (ServerSocket leader = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ReplicationFollower follower = ReplicationFollower.start(
+                     (InetSocketAddress) leader.getLocalSocketAddress())) {
+
+            try (Socket socket = acceptFollower(leader, ReplicationLeader.NO_LEADER, ReplicationLeader.NO_OFFSET)) {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                writeSnapshot(out, 7, 5, 4);
+
+                // a good move, then a move naming an unknown block
+                out.writeByte(ReplicationLeader.BATCH);
+                out.writeLong(5);
+                out.writeInt(2);
+                out.writeByte(FloorProtocol.MOVE_ONTO);
+                out.writeInt(1);
+                out.writeInt(2);
+                out.writeByte(FloorProtocol.MOVE_ONTO);
+                out.writeInt(0);
+                out.writeInt(4);
+                out.flush();
+
+                // the follower acknowledges the snapshot, then drops the connection
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                assertEquals(5, in.readLong());
+                assertEquals(-1, in.read());
+            }
+
+            // the bad batch was not applied, and the follower asks to start over
+            assertEquals(Arrays.asList(1), follower.getBlocksAt(1));
+            try (Socket socket = acceptFollower(leader, ReplicationLeader.NO_LEADER, ReplicationLeader.NO_OFFSET)) {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                writeSnapshot(out, 8, 9, 4);
+                out.flush();
+                assertTrue(follower.awaitOffset(9, 10, TimeUnit.SECONDS));
+            }
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testFollowerInAnotherProcess() throws Exception {
+
+        try (ReplicationLeader leader = ReplicationLeader.start(FactoryFloor.newInstance(10), LOOPBACK, 50)) {
+
+            executeRandom(leader, new Random(5), 10, 500);
+
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    ReplicationFollower.class.getName(),
+                    leader.getAddress().getHostString(), String.valueOf(leader.getAddress().getPort()))
+                    .redirectErrorStream(true)
+                    .start();
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+
+                // the follower prints its floor each time it catches up
+                String expected = String.format("applied %d | %s", leader.getEndOffset(), leader.getFloor());
+                String line;
+                while (((line = reader.readLine()) != null) && !line.equals(expected)) {
+                    assertTrue(line, line.startsWith("applied "));
+                }
+                assertEquals(expected, line);
+            } finally {
+                process.destroy();
+                process.waitFor(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+}